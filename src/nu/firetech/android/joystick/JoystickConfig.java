@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2011, Joakim Andersson
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * # Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * # Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package nu.firetech.android.joystick;
+
+import java.lang.ref.SoftReference;
+import java.util.HashMap;
+
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.SparseArray;
+
+/**
+ * The {@link JoystickConfig} class holds the resolved skin and settings of a
+ * {@link JoystickView}.
+ *
+ * Instances are immutable and shared, so views inflated with the same
+ * attributes reuse both the configuration and the decoded bitmaps instead of
+ * parsing and decoding them again.
+ */
+public final class JoystickConfig {
+	// =========================================
+	// Caches
+	// =========================================
+
+	// One cache per set of drawable qualifiers, since a resource id can resolve
+	// to different files (drawable-land, drawable-night, ...) in each. Keyed on
+	// the qualifiers only, as the full Configuration changes on every resize.
+	private static final HashMap<String, Cache> caches = new HashMap<String, Cache>();
+	private static final int MAX_CACHES = 4;
+
+	private static class Cache {
+		final HashMap<JoystickConfig, SoftReference<JoystickConfig>> configs =
+				new HashMap<JoystickConfig, SoftReference<JoystickConfig>>();
+		final SparseArray<SoftReference<Bitmap>> bitmaps = new SparseArray<SoftReference<Bitmap>>();
+	}
+
+	// =========================================
+	// Private Members
+	// =========================================
+
+	private final int bgResId;
+	private final int handleResId;
+	private final int maxSize;
+	private final int orientation;
+
+	private final Bitmap bg;
+	private final Bitmap handle;
+
+	// =========================================
+	// Constructors
+	// =========================================
+
+	private JoystickConfig(int bgResId, int handleResId, int maxSize, int orientation, Bitmap bg, Bitmap handle) {
+		this.bgResId = bgResId;
+		this.handleResId = handleResId;
+		this.maxSize = maxSize;
+		this.orientation = orientation;
+		this.bg = bg;
+		this.handle = handle;
+	}
+
+	/**
+	 * Returns a shared configuration with the given values, resolving its
+	 * bitmaps only the first time the combination is requested in the current
+	 * resource configuration.
+	 */
+	public static JoystickConfig obtain(Resources res, int bgResId, int handleResId, int maxSize, int orientation) {
+		// The key stays in the map, so keep the bitmaps off it
+		JoystickConfig key = new JoystickConfig(bgResId, handleResId, maxSize, orientation, null, null);
+		synchronized (caches) {
+			Cache cache = getCache(res);
+			SoftReference<JoystickConfig> ref = cache.configs.get(key);
+			JoystickConfig config = (ref != null ? ref.get() : null);
+			if (config == null) {
+				config = new JoystickConfig(bgResId, handleResId, maxSize, orientation,
+						getBitmap(res, bgResId), getBitmap(res, handleResId));
+				cache.configs.put(key, new SoftReference<JoystickConfig>(config));
+			}
+			return config;
+		}
+	}
+
+	/**
+	 * Drops all cached configurations and bitmaps. Views keep the ones they
+	 * already use.
+	 */
+	public static void clearCache() {
+		synchronized (caches) {
+			caches.clear();
+		}
+	}
+
+	// =========================================
+	// Public Methods
+	// =========================================
+
+	public int getBackgroundResource() {
+		return bgResId;
+	}
+
+	public int getHandleResource() {
+		return handleResId;
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public int getOrientation() {
+		return orientation;
+	}
+
+	public Bitmap getBackground() {
+		return bg;
+	}
+
+	public Bitmap getHandle() {
+		return handle;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof JoystickConfig)) {
+			return false;
+		}
+		JoystickConfig other = (JoystickConfig)o;
+		return bgResId == other.bgResId && handleResId == other.handleResId &&
+				maxSize == other.maxSize && orientation == other.orientation;
+	}
+
+	@Override
+	public int hashCode() {
+		int h = bgResId;
+		h = h * 31 + handleResId;
+		h = h * 31 + maxSize;
+		return h * 31 + orientation;
+	}
+
+	// =========================================
+	// Helpers
+	// =========================================
+
+	/**
+	 * Parses the value of the orientation attribute, without allocating a
+	 * lower case copy of it.
+	 */
+	static int parseOrientation(String s) {
+		if (s == null || s.equalsIgnoreCase("both")) {
+			return JoystickView.OR_BOTH;
+		} else if (s.equalsIgnoreCase("vertical")) {
+			return JoystickView.OR_VERTICAL;
+		} else if (s.equalsIgnoreCase("horizontal")) {
+			return JoystickView.OR_HORIZONTAL;
+		}
+		throw new IllegalArgumentException("No such orientation: " + s);
+	}
+
+	/**
+	 * Returns the decoded bitmap of a resource, shared between all views
+	 * using it. Returns null for resource id 0.
+	 */
+	static Bitmap getBitmap(Resources res, int resId) {
+		if (resId == 0) {
+			return null;
+		}
+		synchronized (caches) {
+			Cache cache = getCache(res);
+			SoftReference<Bitmap> ref = cache.bitmaps.get(resId);
+			Bitmap bitmap = (ref != null ? ref.get() : null);
+			if (bitmap == null) {
+				bitmap = BitmapFactory.decodeResource(res, resId);
+				cache.bitmaps.put(resId, new SoftReference<Bitmap>(bitmap));
+			}
+			return bitmap;
+		}
+	}
+
+	private static Cache getCache(Resources res) {
+		String key = qualifiers(res);
+		Cache cache = caches.get(key);
+		if (cache == null) {
+			if (caches.size() >= MAX_CACHES) {
+				caches.clear();
+			}
+			cache = new Cache();
+			caches.put(key, cache);
+		}
+		return cache;
+	}
+
+	// The configuration qualifiers that select a drawable
+	@SuppressWarnings("deprecation")
+	private static String qualifiers(Resources res) {
+		Configuration config = res.getConfiguration();
+		return config.orientation + "-" + (config.uiMode & Configuration.UI_MODE_NIGHT_MASK) + "-" +
+				config.locale + "-" + res.getDisplayMetrics().densityDpi;
+	}
+}
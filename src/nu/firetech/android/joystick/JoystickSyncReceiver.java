@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2011, Joakim Andersson
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * # Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * # Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package nu.firetech.android.joystick;
+
+/**
+ * The {@link JoystickSyncReceiver} class applies the packets of a
+ * {@link JoystickSyncSender} to an {@link OnJoystickMovedListener}.
+ * 
+ * Packets older than the newest one received are ignored, unless they come
+ * from a new session (a restarted sender). Late packets from the last few
+ * sessions are ignored as well. States that were lost with earlier packets
+ * but repeated in a later one are passed to the listener in order before the
+ * newest state.
+ * 
+ * If no packet arrives within the timeout, the listener is moved to (0, 0)
+ * until the link comes back. {@link #check} must be called periodically for
+ * the failsafe to trigger.
+ * 
+ * The receiver is thread safe, so packets can be received on a socket thread
+ * while {@link #check} runs on a timer. The listener is called on the thread
+ * that calls {@link #receive} or {@link #check}, while holding the receiver's
+ * lock.
+ */
+public class JoystickSyncReceiver {
+	public static final long DEFAULT_TIMEOUT = 300;
+
+	//Number of ended sessions whose late packets are recognised and ignored
+	private static final int OLD_SESSIONS = 4;
+
+	// =========================================
+	// Private Members
+	// =========================================
+
+	private final OnJoystickMovedListener listener;
+	private final long timeout;
+
+	private boolean started;
+	private int lastSession;
+	private final int[] oldSessions = new int[OLD_SESSIONS];
+	private int oldSessionCount;
+	private int lastSeq;
+	private long lastReceived;
+	private boolean failsafe;
+
+	//Last state passed to the listener
+	private int x, y;
+
+	private long packets;
+	private long staleCount;
+	private long malformedCount;
+	private long receivedCount;
+	private long recoveredCount;
+	private long lostCount;
+	private long failsafeCount;
+
+	// =========================================
+	// Constructors
+	// =========================================
+
+	public JoystickSyncReceiver(OnJoystickMovedListener listener) {
+		this(listener, DEFAULT_TIMEOUT);
+	}
+
+	/**
+	 * @param timeout the time without packets before the failsafe triggers,
+	 *                in milliseconds.
+	 */
+	public JoystickSyncReceiver(OnJoystickMovedListener listener, long timeout) {
+		this.listener = listener;
+		this.timeout = timeout;
+	}
+
+	// =========================================
+	// Public Methods
+	// =========================================
+
+	public void receive(byte[] packet, int length) {
+		receive(packet, length, JoystickSyncSender.now());
+	}
+
+	/**
+	 * Handles a packet from the sender.
+	 * 
+	 * Malformed packets are counted and dropped, since the link can not be
+	 * trusted.
+	 * 
+	 * @param now the current time in milliseconds.
+	 */
+	public synchronized void receive(byte[] packet, int length, long now) {
+		if (length < JoystickSyncSender.HEADER_SIZE || length > packet.length) {
+			malformedCount++;
+			return;
+		}
+		int session = JoystickSyncSender.readInt(packet, 1);
+		int seq = JoystickSyncSender.readInt(packet, 5);
+		int count = packet[9] & 0xff;
+		if (count < 1 || length < JoystickSyncSender.HEADER_SIZE + count * JoystickSyncSender.STATE_SIZE) {
+			malformedCount++;
+			return;
+		}
+
+		packets++;
+		if (started && session != lastSession) {
+			if (isOldSession(session)) {
+				// Late packet from before a restart
+				staleCount++;
+				return;
+			}
+
+			// The sender was restarted, its sequence numbers start over
+			oldSessions[oldSessionCount % OLD_SESSIONS] = lastSession;
+			oldSessionCount++;
+			started = false;
+		}
+		if (started && seq - lastSeq <= 0) {
+			staleCount++;
+			return;
+		}
+
+		int recovered = 0;
+		if (started) {
+			// States between the last received one and this packet
+			int missed = seq - lastSeq - 1;
+			recovered = Math.min(missed, count - 1);
+			recoveredCount += recovered;
+			lostCount += missed - recovered;
+		}
+		started = true;
+		receivedCount++;
+		lastSession = session;
+		lastSeq = seq;
+		lastReceived = now;
+
+		// Replay the recovered states oldest first, then the newest one
+		for (int i = recovered; i >= 0; i--) {
+			int pos = JoystickSyncSender.HEADER_SIZE + i * JoystickSyncSender.STATE_SIZE;
+			int newX = (short)(((packet[pos] & 0xff) << 8) | (packet[pos + 1] & 0xff));
+			int newY = (short)(((packet[pos + 2] & 0xff) << 8) | (packet[pos + 3] & 0xff));
+			if (failsafe || newX != x || newY != y) {
+				failsafe = false;
+				x = newX;
+				y = newY;
+				listener.onMoved(x, y);
+			}
+		}
+	}
+
+	private boolean isOldSession(int session) {
+		for (int i = Math.min(oldSessionCount, OLD_SESSIONS) - 1; i >= 0; i--) {
+			if (oldSessions[i] == session) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public boolean check() {
+		return check(JoystickSyncSender.now());
+	}
+
+	/**
+	 * Triggers the failsafe if the link has timed out.
+	 * 
+	 * @param now the current time in milliseconds.
+	 * @return true if the failsafe is active.
+	 */
+	public synchronized boolean check(long now) {
+		if (started && !failsafe && now - lastReceived > timeout) {
+			failsafe = true;
+			failsafeCount++;
+			x = 0;
+			y = 0;
+			listener.onMoved(0, 0);
+		}
+		return failsafe;
+	}
+
+	public synchronized boolean isFailsafe() {
+		return failsafe;
+	}
+
+	public synchronized int getLastSequence() {
+		return lastSeq;
+	}
+
+	/** Returns the number of packets received, including stale ones. */
+	public synchronized long getPacketCount() {
+		return packets;
+	}
+
+	/** Returns the number of packets ignored for being older than the newest one. */
+	public synchronized long getStaleCount() {
+		return staleCount;
+	}
+
+	/** Returns the number of packets dropped for being malformed. */
+	public synchronized long getMalformedCount() {
+		return malformedCount;
+	}
+
+	/** Returns the number of states that arrived in their own packet. */
+	public synchronized long getReceivedCount() {
+		return receivedCount;
+	}
+
+	/** Returns the number of states whose packet was lost but arrived in a later one. */
+	public synchronized long getRecoveredCount() {
+		return recoveredCount;
+	}
+
+	/** Returns the number of states that never arrived. */
+	public synchronized long getLostCount() {
+		return lostCount;
+	}
+
+	public synchronized long getFailsafeCount() {
+		return failsafeCount;
+	}
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2011, Joakim Andersson
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * # Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * # Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package nu.firetech.android.joystick;
+
+import java.util.Random;
+
+/**
+ * The {@link JoystickSyncSender} class sends joystick state over a lossy
+ * {@link JoystickLink} to a {@link JoystickSyncReceiver}.
+ * 
+ * A packet is sent whenever the joystick moves, and a keyframe is sent when
+ * nothing has been sent for a keyframe interval, which also serves as the
+ * heartbeat for the receiver's failsafe. Every packet carries the last few
+ * states, so a lost packet is recovered by any of the following ones.
+ * 
+ * The sender is not thread safe, call {@link #onMoved} and {@link #tick}
+ * from the same thread (normally the UI thread).
+ */
+public class JoystickSyncSender implements OnJoystickMovedListener {
+	// Packet layout: flags (1), session (4), sequence number of newest state (4),
+	// state count (1), then count * (x (2), y (2)) with the newest state first.
+	static final int HEADER_SIZE = 10;
+	static final int STATE_SIZE = 4;
+	static final int FLAG_KEYFRAME = 0x01;
+
+	public static final int MAX_REDUNDANCY = 255;
+	public static final int DEFAULT_REDUNDANCY = 4;
+	public static final long DEFAULT_KEYFRAME_INTERVAL = 100;
+
+	// =========================================
+	// Private Members
+	// =========================================
+
+	private final JoystickLink link;
+	private final int redundancy;
+	private final long keyframeInterval;
+
+	//Picked at random, lets the receiver tell a restarted sender from stale packets
+	private final int session = new Random().nextInt();
+
+	//Ring buffer of the last sent states, indexed by sequence number
+	private final int[] historyX;
+	private final int[] historyY;
+	private int seq;
+	private int count;
+
+	private final byte[] packet;
+	private long lastSent;
+
+	// =========================================
+	// Constructors
+	// =========================================
+
+	public JoystickSyncSender(JoystickLink link) {
+		this(link, DEFAULT_REDUNDANCY, DEFAULT_KEYFRAME_INTERVAL);
+	}
+
+	/**
+	 * @param redundancy       the number of states in each packet.
+	 * @param keyframeInterval the longest time between two packets, in
+	 *                         milliseconds.
+	 */
+	public JoystickSyncSender(JoystickLink link, int redundancy, long keyframeInterval) {
+		if (redundancy < 1 || redundancy > MAX_REDUNDANCY) {
+			throw new IllegalArgumentException("Redundancy must be 1-" + MAX_REDUNDANCY);
+		}
+		this.link = link;
+		this.redundancy = redundancy;
+		this.keyframeInterval = keyframeInterval;
+		historyX = new int[redundancy];
+		historyY = new int[redundancy];
+		packet = new byte[HEADER_SIZE + redundancy * STATE_SIZE];
+	}
+
+	// =========================================
+	// Public Methods
+	// =========================================
+
+	@Override
+	public void onMoved(int x, int y) {
+		setState(x, y, now());
+	}
+
+	/**
+	 * Sends a packet with a new state.
+	 * 
+	 * @param now the current time in milliseconds.
+	 */
+	public void setState(int x, int y, long now) {
+		send(x, y, 0, now);
+	}
+
+	/**
+	 * Sends a keyframe if nothing has been sent for a keyframe interval. Call
+	 * this periodically, at least as often as the keyframe interval.
+	 */
+	public void tick() {
+		tick(now());
+	}
+
+	/**
+	 * @param now the current time in milliseconds.
+	 */
+	public void tick(long now) {
+		if (count == 0 || now - lastSent >= keyframeInterval) {
+			int last = (count == 0 ? 0 : index(seq));
+			send(historyX[last], historyY[last], FLAG_KEYFRAME, now);
+		}
+	}
+
+	public int getSession() {
+		return session;
+	}
+
+	public int getSequence() {
+		return seq;
+	}
+
+	// =========================================
+	// Helpers
+	// =========================================
+
+	private void send(int x, int y, int flags, long now) {
+		seq++;
+		historyX[index(seq)] = x;
+		historyY[index(seq)] = y;
+		if (count < redundancy) {
+			count++;
+		}
+
+		packet[0] = (byte)flags;
+		writeInt(packet, 1, session);
+		writeInt(packet, 5, seq);
+		packet[9] = (byte)count;
+		int pos = HEADER_SIZE;
+		for (int i = 0; i < count; i++) {
+			int j = index(seq - i);
+			packet[pos++] = (byte)(historyX[j] >> 8);
+			packet[pos++] = (byte)historyX[j];
+			packet[pos++] = (byte)(historyY[j] >> 8);
+			packet[pos++] = (byte)historyY[j];
+		}
+
+		lastSent = now;
+		link.send(packet, pos);
+	}
+
+	private static void writeInt(byte[] buffer, int pos, int value) {
+		buffer[pos] = (byte)(value >> 24);
+		buffer[pos + 1] = (byte)(value >> 16);
+		buffer[pos + 2] = (byte)(value >> 8);
+		buffer[pos + 3] = (byte)value;
+	}
+
+	static int readInt(byte[] buffer, int pos) {
+		return ((buffer[pos] & 0xff) << 24) | ((buffer[pos + 1] & 0xff) << 16) |
+				((buffer[pos + 2] & 0xff) << 8) | (buffer[pos + 3] & 0xff);
+	}
+
+	private int index(int seq) {
+		int i = seq % redundancy;
+		return (i < 0 ? i + redundancy : i);
+	}
+
+	static long now() {
+		return System.nanoTime() / 1000000;
+	}
+}
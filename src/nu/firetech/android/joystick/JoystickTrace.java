@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2011, Joakim Andersson
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * # Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * # Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package nu.firetech.android.joystick;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Trace;
+
+/**
+ * The {@link JoystickTrace} class holds the {@link JoystickTracer} that the
+ * joystick views report their hot path stages to.
+ * 
+ * No tracer is installed by default, in which case each stage only costs a
+ * null check.
+ */
+public final class JoystickTrace {
+	public static final String ON_TOUCH_EVENT = "JoystickView.onTouchEvent";
+	public static final String REPORT_ON_MOVED = "JoystickView.reportOnMoved";
+	public static final String LISTENER = "JoystickView.listener";
+	public static final String ON_DRAW = "JoystickView.onDraw";
+	public static final String SPLIT_ON_MEASURE = "SplitJoystickView.onMeasure";
+
+	//Read directly by the views, null when tracing is disabled. Not volatile,
+	//since the views read it on the UI thread, where it is also set.
+	static JoystickTracer tracer;
+
+	private JoystickTrace() {
+	}
+
+	/**
+	 * Installs a tracer, or removes it if null. Must be called on the UI
+	 * thread, like all other calls to the views.
+	 */
+	public static void setTracer(JoystickTracer tracer) {
+		JoystickTrace.tracer = tracer;
+	}
+
+	public static JoystickTracer getTracer() {
+		return tracer;
+	}
+
+	/**
+	 * Routes all stages to android.os.Trace, so they show up in systrace and
+	 * Perfetto. Counters need API level 29, sections API level 18. Must be
+	 * called on the UI thread.
+	 * 
+	 * @return false if the platform does not support tracing.
+	 */
+	public static boolean enableSystemTrace() {
+		if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2) {
+			return false;
+		}
+		setTracer(new SystemTracer());
+		return true;
+	}
+
+	// =========================================
+	// android.os.Trace bridge
+	// =========================================
+
+	// Only created on API level 18 and later
+	@TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+	private static class SystemTracer implements JoystickTracer {
+		private final boolean counters = Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q;
+
+		@Override
+		public void beginSection(String name) {
+			Trace.beginSection(name);
+		}
+
+		@Override
+		public void endSection() {
+			Trace.endSection();
+		}
+
+		@Override
+		@TargetApi(Build.VERSION_CODES.Q)
+		public void setCounter(String name, long value) {
+			if (counters) {
+				Trace.setCounter(name, value);
+			}
+		}
+	}
+}
@@ -39,9 +39,9 @@ package nu.firetech.android.joystick;
 import android.content.Context;
 import android.content.res.TypedArray;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Rect;
+import android.os.SystemClock;
 import android.util.AttributeSet;
 import android.view.MotionEvent;
 import android.view.View;
@@ -57,6 +57,11 @@ public class JoystickView extends View {
 	public static final int OR_VERTICAL = 1;
 	public static final int OR_HORIZONTAL = 2;
 
+	//Capacity of the pointer table (pointer ids at or above this are ignored)
+	public static final int MAX_POINTERS = 10;
+
+	public static final float DEFAULT_PRECISION_SCALE = 0.25f;
+
 	// =========================================
 	// Private Members
 	// =========================================
@@ -95,6 +100,47 @@ public class JoystickView extends View {
 	private int offsetX;
 	private int offsetY;
 
+	//Multi touch state, pointer table is indexed by pointer id (touch positions relative to center)
+	private boolean multiTouch;
+	private OnJoystickGestureListener gestureListener;
+	private float precisionScale = DEFAULT_PRECISION_SCALE;
+	private final boolean[] pointerDown = new boolean[MAX_POINTERS];
+	private final float[] pointerX = new float[MAX_POINTERS];
+	private final float[] pointerY = new float[MAX_POINTERS];
+	private int secondaryId = INVALID_POINTER_ID;
+
+	//Unscaled position of the stick finger, and the handle and finger positions that
+	//movement is measured from (moved when precision mode starts or ends)
+	private float rawX, rawY;
+	private float anchorX, anchorY;
+	private float rawAnchorX, rawAnchorY;
+
+	//Finger angle and distance when the gesture started, and last reported gesture
+	private double gestureAngle;
+	private double gestureDistance;
+	private int reportRotation, reportPinch;
+
+	//Tracing state (only maintained while a tracer is installed, counter names are built on first use)
+	private String traceName = "JoystickView";
+	private String counterX, counterY, counterQueue, counterRate;
+	private int pendingFrames;
+	private boolean reportWindowOpen;
+	private int reportCount;
+	private long reportWindowStart;
+
+	//Return to center animation, the same frame is posted once per step
+	private float returnStepX, returnStepY;
+	private final Runnable returnFrame = new Runnable() {
+		@Override
+		public void run() {
+			setPendingFrames(pendingFrames - 1);
+			touchX += returnStepX;
+			touchY += returnStepY;
+
+			invalidate();
+		}
+	};
+
 	// =========================================
 	// Constructors
 	// =========================================
@@ -107,27 +153,21 @@ public class JoystickView extends View {
 	public JoystickView(Context context, AttributeSet attrs) {
 		super(context, attrs);
 
+		int bgResId = R.drawable.joystick_bg;
+		int handleResId = R.drawable.joystick_handle;
+		int maxSize = 0;
+		int orientation = OR_BOTH;
+
 		TypedArray a = context.obtainStyledAttributes(attrs, R.styleable.JoystickView);
 		if (a != null) {
-			setBackground(a.getResourceId(R.styleable.JoystickView_bgSrc, R.drawable.joystick_bg));
-			setHandle(a.getResourceId(R.styleable.JoystickView_handleSrc, R.drawable.joystick_handle));
-			setMaxSize(a.getDimensionPixelSize(R.styleable.JoystickView_maxJoystickSize, 0));
-			int orientation = OR_BOTH;
-			String s = a.getString(R.styleable.JoystickView_orientation);
-			if (s != null) {
-				s = s.toLowerCase();
-				if (s.equals("both")) {
-					orientation = OR_BOTH;
-				} else if (s.equals("vertical")) {
-					orientation = OR_VERTICAL;
-				} else if (s.equals("horizontal")) {
-					orientation = OR_HORIZONTAL;
-				} else {
-					throw new IllegalArgumentException("No such orientation: " + s);
-				}
-				setOrientation(orientation);
-			}
+			bgResId = a.getResourceId(R.styleable.JoystickView_bgSrc, bgResId);
+			handleResId = a.getResourceId(R.styleable.JoystickView_handleSrc, handleResId);
+			maxSize = a.getDimensionPixelSize(R.styleable.JoystickView_maxJoystickSize, maxSize);
+			orientation = JoystickConfig.parseOrientation(a.getString(R.styleable.JoystickView_orientation));
+			setMultiTouch(a.getBoolean(R.styleable.JoystickView_multiTouch, false));
+			a.recycle();
 		}
+		setConfig(JoystickConfig.obtain(getResources(), bgResId, handleResId, maxSize, orientation));
 
 		initView();
 	}
@@ -144,6 +184,16 @@ public class JoystickView extends View {
 	// Public Methods 
 	// =========================================
 
+	/**
+	 * Applies all settings and bitmaps of a (possibly shared) configuration.
+	 */
+	public void setConfig(JoystickConfig config) {
+		setOrientation(config.getOrientation());
+		setMaxSize(config.getMaxSize());
+		bg = config.getBackground();
+		handle = config.getHandle();
+	}
+
 	public void setOrientation(int orientation) {
 		switch(orientation) {
 		case OR_BOTH:
@@ -161,26 +211,51 @@ public class JoystickView extends View {
 	}
 
 	public void setBackground(int resId) {
-		if (resId != 0) {
-			bg = BitmapFactory.decodeResource(getResources(), resId);
-		} else {
-			bg = null;
-		}
+		bg = JoystickConfig.getBitmap(getResources(), resId);
 	}
 
 	public void setHandle(int resId) {
-		if (resId != 0) {
-			handle = BitmapFactory.decodeResource(getResources(), resId);
-		} else {
-			handle = null;
-		}
+		handle = JoystickConfig.getBitmap(getResources(), resId);
 	}
 
 	public void setOnJostickMovedListener(OnJoystickMovedListener listener) {
 		this.moveListener = listener;
 	}
 
+	public void setOnJoystickGestureListener(OnJoystickGestureListener listener) {
+		this.gestureListener = listener;
+	}
+
+	/**
+	 * Enables tracking of additional fingers on this stick. While a second
+	 * finger is down, stick movement is scaled by the precision scale and the
+	 * twist and pinch of the two fingers are reported to the gesture listener.
+	 * When the second finger is lifted, the stick keeps its position and
+	 * follows the stick finger's movement unscaled from there.
+	 */
+	public void setMultiTouch(boolean multiTouch) {
+		this.multiTouch = multiTouch;
+		if (!multiTouch) {
+			clearSecondaryPointers();
+		}
+	}
+
+	public boolean isMultiTouch() {
+		return multiTouch;
+	}
+
+	/**
+	 * Sets how much of the stick finger's movement is applied while a second
+	 * finger is down. Use 1 to disable precision mode.
+	 */
+	public void setPrecisionScale(float precisionScale) {
+		this.precisionScale = precisionScale;
+	}
+
 	public void setPointerId(int id) {
+		if (this.pointerId != id) {
+			clearSecondaryPointers();
+		}
 		this.pointerId = id;
 	}
 
@@ -188,6 +263,15 @@ public class JoystickView extends View {
 		return pointerId;
 	}
 
+	/**
+	 * Sets the prefix of the trace counters of this view, so that several
+	 * sticks can be told apart.
+	 */
+	public void setTraceName(String name) {
+		traceName = name;
+		counterX = null;
+	}
+
 	public void setTouchOffset(int x, int y) {
 		offsetX = x;
 		offsetY = y;
@@ -247,6 +331,20 @@ public class JoystickView extends View {
 
 	@Override
 	protected void onDraw(Canvas canvas) {
+		final JoystickTracer tracer = JoystickTrace.tracer;
+		if (tracer != null) {
+			tracer.beginSection(JoystickTrace.ON_DRAW);
+		}
+		try {
+			drawJoystick(canvas);
+		} finally {
+			if (tracer != null) {
+				tracer.endSection();
+			}
+		}
+	}
+
+	private void drawJoystick(Canvas canvas) {
 		canvas.save();
 		// Draw the background
 		if (bg != null) {
@@ -279,6 +377,20 @@ public class JoystickView extends View {
 
 	@Override
 	public boolean onTouchEvent(MotionEvent ev) {
+		final JoystickTracer tracer = JoystickTrace.tracer;
+		if (tracer != null) {
+			tracer.beginSection(JoystickTrace.ON_TOUCH_EVENT);
+		}
+		try {
+			return processTouchEvent(ev);
+		} finally {
+			if (tracer != null) {
+				tracer.endSection();
+			}
+		}
+	}
+
+	private boolean processTouchEvent(MotionEvent ev) {
 		final int action = ev.getAction();
 		switch (action & MotionEvent.ACTION_MASK) {
 		case MotionEvent.ACTION_MOVE:
@@ -300,46 +412,91 @@ public class JoystickView extends View {
 					returnHandleToCenter();
 					setPointerId(INVALID_POINTER_ID);
 					return true;
+				} else if ( pointerId >= 0 && pointerId < MAX_POINTERS && pointerDown[pointerId] ) {
+					pointerDown[pointerId] = false;
+					if ( pointerId == secondaryId ) {
+						endGesture();
+						startGesture(findSecondaryPointer());
+					}
+					return true;
 				}
 			}
 			break;
 
 		case MotionEvent.ACTION_DOWN:
 			if ( pointerId == INVALID_POINTER_ID ) {
-				int x = (int) ev.getX() - cX;
-				if ( x >= offsetX - dim/2 && x <= offsetX + dim/2 ) {
+				if ( isInside(ev.getX()) ) {
 					setPointerId(ev.getPointerId(0));
+					startTracking(ev, 0);
 					return true;
 				}
 			}
 			break;
 
-		case MotionEvent.ACTION_POINTER_DOWN:
-			if ( pointerId == INVALID_POINTER_ID ) {
-				final int pointerIndex = (action & MotionEvent.ACTION_POINTER_INDEX_MASK) >> MotionEvent.ACTION_POINTER_INDEX_SHIFT;
-				final int pointerId = ev.getPointerId(pointerIndex);
-				int x = (int) ev.getX(pointerId) - cX;
-				if ( x >= offsetX - dim/2 && x <= offsetX + dim/2 ) {
+		case MotionEvent.ACTION_POINTER_DOWN: {
+			final int pointerIndex = (action & MotionEvent.ACTION_POINTER_INDEX_MASK) >> MotionEvent.ACTION_POINTER_INDEX_SHIFT;
+			final int pointerId = ev.getPointerId(pointerIndex);
+			if ( this.pointerId == INVALID_POINTER_ID ) {
+				if ( isInside(ev.getX(pointerIndex)) ) {
 					setPointerId(pointerId);
+					startTracking(ev, pointerIndex);
+					return true;
+				}
+			} else if ( multiTouch && pointerId >= 0 && pointerId < MAX_POINTERS ) {
+				if ( isInside(ev.getX(pointerIndex)) ) {
+					pointerDown[pointerId] = true;
+					pointerX[pointerId] = ev.getX(pointerIndex) - cX - offsetX;
+					pointerY[pointerId] = ev.getY(pointerIndex) - cY - offsetY;
+					if ( secondaryId == INVALID_POINTER_ID ) {
+						startGesture(pointerId);
+					}
 					return true;
 				}
 			}
 			break;
 		}
+		}
 		return false;
 	}
 
+	private void startTracking(MotionEvent ev, int pointerIndex) {
+		// Stop the return animation of the previous touch
+		removeCallbacks(returnFrame);
+		setPendingFrames(0);
+
+		rawX = ev.getX(pointerIndex) - cX - offsetX;
+		rawY = ev.getY(pointerIndex) - cY - offsetY;
+		touchX = rawX;
+		touchY = rawY;
+		anchorX = rawAnchorX = rawX;
+		anchorY = rawAnchorY = rawY;
+
+		reportOnMoved();
+		invalidate();
+	}
+
 	private boolean processMoveEvent(MotionEvent ev) {
 		if ( pointerId != INVALID_POINTER_ID ) {
 			final int pointerIndex = ev.findPointerIndex(pointerId);
 
 			// Translate touch position to center of view
 			float x = ev.getX(pointerIndex);
-			touchX = x - cX - offsetX;
+			rawX = x - cX - offsetX;
 			float y = ev.getY(pointerIndex);
-			touchY = y - cY - offsetY;
+			rawY = y - cY - offsetY;
+
+			// Move the handle relative to where it was when precision mode last
+			// started or ended, scaling the movement while in precision mode
+			float scale = 1.0f;
+			if ( secondaryId != INVALID_POINTER_ID ) {
+				updateSecondaryPointers(ev);
+				scale = precisionScale;
+			}
+			touchX = anchorX + (rawX - rawAnchorX) * scale;
+			touchY = anchorY + (rawY - rawAnchorY) * scale;
 
 			reportOnMoved();
+			reportOnGesture();
 			invalidate();
 
 			return true;
@@ -348,6 +505,20 @@ public class JoystickView extends View {
 	}
 
 	private void reportOnMoved() {
+		final JoystickTracer tracer = JoystickTrace.tracer;
+		if (tracer != null) {
+			tracer.beginSection(JoystickTrace.REPORT_ON_MOVED);
+		}
+		try {
+			updateReport();
+		} finally {
+			if (tracer != null) {
+				tracer.endSection();
+			}
+		}
+	}
+
+	private void updateReport() {
 		if (orientation != OR_VERTICAL) {
 			touchX = Math.max(Math.min(touchX, movementRadius), -movementRadius);
 		} else {
@@ -369,26 +540,118 @@ public class JoystickView extends View {
 				userX = (int)(touchX / movementRadius * 10);
 				userY = -(int)(touchY / movementRadius * 10);
 
-				moveListener.onMoved(userX, userY);
+				notifyMoved(userX, userY);
+			}
+		}
+	}
+
+	private boolean isInside(float x) {
+		x -= cX;
+		return x >= offsetX - dim/2 && x <= offsetX + dim/2;
+	}
+
+	// =========================================
+	// Multi Touch Functionality
+	// =========================================
+
+	private void updateSecondaryPointers(MotionEvent ev) {
+		for (int id = 0; id < MAX_POINTERS; id++) {
+			if (pointerDown[id]) {
+				final int pointerIndex = ev.findPointerIndex(id);
+				if (pointerIndex >= 0) {
+					pointerX[id] = ev.getX(pointerIndex) - cX - offsetX;
+					pointerY[id] = ev.getY(pointerIndex) - cY - offsetY;
+				}
 			}
 		}
 	}
 
+	private int findSecondaryPointer() {
+		for (int id = 0; id < MAX_POINTERS; id++) {
+			if (pointerDown[id]) {
+				return id;
+			}
+		}
+		return INVALID_POINTER_ID;
+	}
+
+	private void startGesture(int id) {
+		secondaryId = id;
+		if (id == INVALID_POINTER_ID) {
+			return;
+		}
+
+		reanchor();
+
+		double dx = pointerX[id] - rawX;
+		double dy = pointerY[id] - rawY;
+		gestureAngle = Math.atan2(-dy, dx);
+		gestureDistance = Math.sqrt(dx * dx + dy * dy);
+		reportRotation = 0;
+		reportPinch = 100;
+	}
+
+	private void endGesture() {
+		if (secondaryId == INVALID_POINTER_ID) {
+			return;
+		}
+		secondaryId = INVALID_POINTER_ID;
+
+		// Continue from where the handle is rather than jumping to the finger
+		reanchor();
+
+		if (gestureListener != null && (reportRotation != 0 || reportPinch != 100)) {
+			reportRotation = 0;
+			reportPinch = 100;
+			gestureListener.onGesture(0, 100);
+		}
+	}
+
+	private void reanchor() {
+		anchorX = touchX;
+		anchorY = touchY;
+		rawAnchorX = rawX;
+		rawAnchorY = rawY;
+	}
+
+	private void clearSecondaryPointers() {
+		endGesture();
+		for (int id = 0; id < MAX_POINTERS; id++) {
+			pointerDown[id] = false;
+		}
+	}
+
+	private void reportOnGesture() {
+		if (secondaryId == INVALID_POINTER_ID || gestureListener == null) {
+			return;
+		}
+
+		double dx = pointerX[secondaryId] - rawX;
+		double dy = pointerY[secondaryId] - rawY;
+		double angle = Math.toDegrees(Math.atan2(-dy, dx) - gestureAngle);
+		if (angle > 180) {
+			angle -= 360;
+		} else if (angle < -180) {
+			angle += 360;
+		}
+		int rotation = (int)angle;
+		int pinch = (gestureDistance > 0 ? (int)(Math.sqrt(dx * dx + dy * dy) / gestureDistance * 100) : 100);
+
+		if (rotation != reportRotation || pinch != reportPinch) {
+			reportRotation = rotation;
+			reportPinch = pinch;
+			gestureListener.onGesture(rotation, pinch);
+		}
+	}
+
 	private void returnHandleToCenter() {
 		final int numberOfFrames = 2;
-		final double intervalsX = (0 - touchX) / numberOfFrames;
-		final double intervalsY = (0 - touchY) / numberOfFrames;
+		returnStepX = (0 - touchX) / numberOfFrames;
+		returnStepY = (0 - touchY) / numberOfFrames;
 
 		for (int i = 0; i < numberOfFrames; i++) {
-			postDelayed(new Runnable() {
-				@Override
-				public void run() {
-					touchX += intervalsX;
-					touchY += intervalsY;
-
-					invalidate();
-				}
-			}, i * 40);
+			setPendingFrames(pendingFrames + 1);
+			postDelayed(returnFrame, i * 40);
 		}
 
 		if (moveListener != null) {
@@ -396,7 +659,66 @@ public class JoystickView extends View {
 			this.reportX = 0;
 			this.reportY = 0;
 
-			moveListener.onMoved(0, 0);
+			notifyMoved(0, 0);
+		}
+
+		final JoystickTracer tracer = JoystickTrace.tracer;
+		if (tracer != null) {
+			// Released, so no longer reporting
+			reportWindowOpen = false;
+			buildCounterNames();
+			tracer.setCounter(counterRate, 0);
+		}
+	}
+
+	private void notifyMoved(int x, int y) {
+		final JoystickTracer tracer = JoystickTrace.tracer;
+		if (tracer == null) {
+			moveListener.onMoved(x, y);
+			return;
+		}
+
+		buildCounterNames();
+		tracer.setCounter(counterX, x);
+		tracer.setCounter(counterY, y);
+		long now = SystemClock.uptimeMillis();
+		if (!reportWindowOpen) {
+			// First report of a touch, count the reports that follow it
+			reportWindowOpen = true;
+			reportWindowStart = now;
+			reportCount = 0;
+		} else {
+			reportCount++;
+			if (now - reportWindowStart >= 1000) {
+				tracer.setCounter(counterRate, reportCount * 1000L / (now - reportWindowStart));
+				reportCount = 0;
+				reportWindowStart = now;
+			}
+		}
+
+		tracer.beginSection(JoystickTrace.LISTENER);
+		try {
+			moveListener.onMoved(x, y);
+		} finally {
+			tracer.endSection();
+		}
+	}
+
+	private void setPendingFrames(int pendingFrames) {
+		this.pendingFrames = pendingFrames;
+		final JoystickTracer tracer = JoystickTrace.tracer;
+		if (tracer != null) {
+			buildCounterNames();
+			tracer.setCounter(counterQueue, pendingFrames);
+		}
+	}
+
+	private void buildCounterNames() {
+		if (counterX == null) {
+			counterX = traceName + ".x";
+			counterY = traceName + ".y";
+			counterQueue = traceName + ".queue";
+			counterRate = traceName + ".reportsPerSec";
 		}
 	}
 }
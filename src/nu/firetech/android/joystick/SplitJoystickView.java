@@ -38,7 +38,6 @@ package nu.firetech.android.joystick;
 import android.content.Context;
 import android.content.res.TypedArray;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Rect;
 import android.util.AttributeSet;
@@ -87,13 +86,16 @@ public class SplitJoystickView extends LinearLayout {
 		if (a != null) {
 			int maxSize = a.getDimensionPixelSize(R.styleable.SplitJoystickView_maxJoystickSize, 0);
 			this.setLeftControls(a.getBoolean(R.styleable.SplitJoystickView_leftControls, false));
-			stickVertical.setBackground(a.getResourceId(R.styleable.SplitJoystickView_vertBgSrc, R.drawable.joystick_bg_vert));
-			stickVertical.setHandle(a.getResourceId(R.styleable.SplitJoystickView_vertHandleSrc, R.drawable.joystick_handle));
-			stickVertical.setMaxSize(maxSize);
+			stickVertical.setConfig(JoystickConfig.obtain(getResources(),
+					a.getResourceId(R.styleable.SplitJoystickView_vertBgSrc, R.drawable.joystick_bg_vert),
+					a.getResourceId(R.styleable.SplitJoystickView_vertHandleSrc, R.drawable.joystick_handle),
+					maxSize, JoystickView.OR_VERTICAL));
 			this.setSpacer(a.getResourceId(R.styleable.SplitJoystickView_spacerSrc, 0));
-			stickHorizontal.setBackground(a.getResourceId(R.styleable.SplitJoystickView_horizBgSrc, R.drawable.joystick_bg_horiz));
-			stickHorizontal.setHandle(a.getResourceId(R.styleable.SplitJoystickView_horizHandleSrc, R.drawable.joystick_handle));
-			stickHorizontal.setMaxSize(maxSize);
+			stickHorizontal.setConfig(JoystickConfig.obtain(getResources(),
+					a.getResourceId(R.styleable.SplitJoystickView_horizBgSrc, R.drawable.joystick_bg_horiz),
+					a.getResourceId(R.styleable.SplitJoystickView_horizHandleSrc, R.drawable.joystick_handle),
+					maxSize, JoystickView.OR_HORIZONTAL));
+			a.recycle();
 		}
 	}
 
@@ -108,6 +110,8 @@ public class SplitJoystickView extends LinearLayout {
 		stickVertical.setOrientation(JoystickView.OR_VERTICAL);
 		stickHorizontal = new JoystickView(getContext());
 		stickHorizontal.setOrientation(JoystickView.OR_HORIZONTAL);
+		stickVertical.setTraceName("SplitJoystickView.vertical");
+		stickHorizontal.setTraceName("SplitJoystickView.horizontal");
 		spacer = new View(getContext());
 	}
 	
@@ -143,11 +147,7 @@ public class SplitJoystickView extends LinearLayout {
 	}
 
 	public void setSpacer(int resId) {
-		if (resId != 0) {
-			spacerBitmap = BitmapFactory.decodeResource(getResources(), resId);
-		} else {
-			spacerBitmap = null;
-		}
+		spacerBitmap = JoystickConfig.getBitmap(getResources(), resId);
 	}
 
 	public void setHorizBackground(int resId) {
@@ -164,6 +164,20 @@ public class SplitJoystickView extends LinearLayout {
 
 	@Override
 	protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+		final JoystickTracer tracer = JoystickTrace.tracer;
+		if (tracer != null) {
+			tracer.beginSection(JoystickTrace.SPLIT_ON_MEASURE);
+		}
+		try {
+			measureSticks(widthMeasureSpec, heightMeasureSpec);
+		} finally {
+			if (tracer != null) {
+				tracer.endSection();
+			}
+		}
+	}
+
+	private void measureSticks(int widthMeasureSpec, int heightMeasureSpec) {
 		super.onMeasure(widthMeasureSpec, heightMeasureSpec);
 		removeView(stickVertical);
 		removeView(spacer);
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2011, Joakim Andersson
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * # Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * # Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package nu.firetech.android.joystick.tests;
+
+import nu.firetech.android.joystick.JoystickConfig;
+import nu.firetech.android.joystick.JoystickView;
+import android.test.AndroidTestCase;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.widget.LinearLayout;
+
+/**
+ * Measures the time it takes to inflate {@link JoystickView}s, with the
+ * shared {@link JoystickConfig} cache disabled, cold and warm.
+ * 
+ * The results are written to the log, run with:
+ * adb shell am instrument -w -e class nu.firetech.android.joystick.tests.InflationBenchmark
+ * nu.firetech.android.joystick.tests/android.test.InstrumentationTestRunner
+ */
+public class InflationBenchmark extends AndroidTestCase {
+	private static final String TAG = InflationBenchmark.class.getSimpleName();
+
+	private static final int[] STICK_COUNTS = { 1, 4, 16 };
+	private static final int RUNS = 20;
+
+	private LayoutInflater inflater;
+	private LinearLayout parent;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		inflater = LayoutInflater.from(getContext());
+		parent = new LinearLayout(getContext());
+
+		// Get class loading and layout parsing out of the way
+		inflate(1, false);
+	}
+
+	public void testInflation() {
+		for (int sticks : STICK_COUNTS) {
+			long uncached = 0, cold = 0, warm = 0;
+			for (int run = 0; run < RUNS; run++) {
+				// Every stick decodes its own bitmaps, like before the cache
+				uncached += inflate(sticks, true);
+
+				JoystickConfig.clearCache();
+				cold += inflate(sticks, false);
+				warm += inflate(sticks, false);
+			}
+			Log.i(TAG, String.format("%2d sticks: uncached %.2f ms, cold %.2f ms, warm %.2f ms", sticks,
+					uncached / 1e6 / RUNS, cold / 1e6 / RUNS, warm / 1e6 / RUNS));
+		}
+	}
+
+	private long inflate(int sticks, boolean clearEach) {
+		long time = 0;
+		for (int i = 0; i < sticks; i++) {
+			if (clearEach) {
+				JoystickConfig.clearCache();
+			}
+			long start = System.nanoTime();
+			inflater.inflate(R.layout.benchmark_stick, parent, false);
+			time += System.nanoTime() - start;
+		}
+		return time;
+	}
+}
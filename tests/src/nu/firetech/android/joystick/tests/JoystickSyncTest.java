@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2011, Joakim Andersson
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * # Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * # Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package nu.firetech.android.joystick.tests;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import nu.firetech.android.joystick.JoystickLink;
+import nu.firetech.android.joystick.JoystickSyncReceiver;
+import nu.firetech.android.joystick.JoystickSyncSender;
+import nu.firetech.android.joystick.OnJoystickMovedListener;
+
+/**
+ * Checks how a {@link JoystickSyncReceiver} handles lost, stale and
+ * duplicated packets from a {@link JoystickSyncSender}, restarted senders and
+ * link timeouts. The sync classes do not use Android, so these also run on a
+ * plain JVM.
+ */
+public class JoystickSyncTest extends TestCase {
+	private static final long TIMEOUT = 300;
+
+	private ArrayList<byte[]> packets;
+	private ArrayList<String> moves;
+	private JoystickSyncReceiver receiver;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		packets = new ArrayList<byte[]>();
+		moves = new ArrayList<String>();
+		receiver = new JoystickSyncReceiver(new OnJoystickMovedListener() {
+			@Override
+			public void onMoved(int x, int y) {
+				moves.add(x + "," + y);
+			}
+		}, TIMEOUT);
+	}
+
+	public void testStaleAndDuplicatePackets() {
+		JoystickSyncSender sender = newSender(4);
+		sender.setState(1, 1, 0);
+		sender.setState(2, 2, 10);
+
+		deliver(1, 20);
+		deliver(0, 30);
+		deliver(1, 40);
+
+		assertMoves("2,2");
+		assertEquals(2, receiver.getStaleCount());
+	}
+
+	public void testRecoveredStatesReplayedInOrder() {
+		JoystickSyncSender sender = newSender(4);
+		for (int i = 1; i <= 4; i++) {
+			sender.setState(i, 0, i * 10);
+		}
+
+		deliver(0, 50);
+		deliver(3, 60);
+
+		assertMoves("1,0", "2,0", "3,0", "4,0");
+		assertEquals(2, receiver.getRecoveredCount());
+		assertEquals(0, receiver.getLostCount());
+	}
+
+	public void testStatesLostBeyondRedundancy() {
+		JoystickSyncSender sender = newSender(2);
+		for (int i = 1; i <= 4; i++) {
+			sender.setState(i, 0, i * 10);
+		}
+
+		deliver(0, 50);
+		deliver(3, 60);
+
+		assertMoves("1,0", "3,0", "4,0");
+		assertEquals(1, receiver.getRecoveredCount());
+		assertEquals(1, receiver.getLostCount());
+	}
+
+	public void testSessionRestart() {
+		JoystickSyncSender oldSender = newSender(1);
+		for (int i = 0; i < 100; i++) {
+			oldSender.setState(i % 10, 0, i);
+		}
+		deliver(99, 100);
+
+		// The new sender starts over at sequence 1
+		JoystickSyncSender newSender = newSender(1);
+		newSender.setState(5, 5, 110);
+		deliver(100, 120);
+
+		// Late packet from before the restart
+		deliver(98, 130);
+
+		assertMoves("9,0", "5,5");
+		assertEquals(1, receiver.getStaleCount());
+	}
+
+	public void testFailsafe() {
+		JoystickSyncSender sender = newSender(4);
+		sender.setState(10, 10, 0);
+		deliver(0, 0);
+
+		assertFalse(receiver.check(TIMEOUT));
+		assertTrue(receiver.check(TIMEOUT + 1));
+		assertTrue(receiver.isFailsafe());
+		assertMoves("10,10", "0,0");
+
+		// The next keyframe brings the link back
+		sender.tick(TIMEOUT + 10);
+		deliver(1, TIMEOUT + 20);
+		assertFalse(receiver.isFailsafe());
+		assertMoves("10,10", "0,0", "10,10");
+	}
+
+	public void testFailsafeIgnoresLateDuplicate() {
+		JoystickSyncSender sender = newSender(4);
+		sender.setState(10, 10, 0);
+		sender.setState(0, 0, 10);
+		deliver(0, 0);
+		deliver(1, 10);
+		// The failsafe forces neutral even if the last state already was
+		assertTrue(receiver.check(400));
+
+		// A late copy of the full throttle packet must not leave the failsafe
+		deliver(0, 410);
+		assertTrue(receiver.isFailsafe());
+		assertEquals(2, receiver.getLastSequence());
+		assertMoves("10,10", "0,0", "0,0");
+	}
+
+	public void testMalformedPackets() {
+		JoystickSyncSender sender = newSender(4);
+		sender.setState(3, 3, 0);
+		byte[] packet = packets.get(0);
+
+		// Too short, and a state count larger than the packet
+		receiver.receive(packet, 5, 0);
+		byte[] bad = packet.clone();
+		bad[9] = 4;
+		receiver.receive(bad, bad.length, 0);
+		assertEquals(2, receiver.getMalformedCount());
+
+		receiver.receive(packet, packet.length, 0);
+		assertMoves("3,3");
+	}
+
+	// =========================================
+	// Helpers
+	// =========================================
+
+	private JoystickSyncSender newSender(int redundancy) {
+		return new JoystickSyncSender(new JoystickLink() {
+			@Override
+			public void send(byte[] packet, int length) {
+				byte[] copy = new byte[length];
+				System.arraycopy(packet, 0, copy, 0, length);
+				packets.add(copy);
+			}
+		}, redundancy, 100);
+	}
+
+	private void deliver(int index, long now) {
+		byte[] packet = packets.get(index);
+		receiver.receive(packet, packet.length, now);
+	}
+
+	private void assertMoves(String... expected) {
+		assertEquals(Arrays.asList(expected), moves);
+	}
+}
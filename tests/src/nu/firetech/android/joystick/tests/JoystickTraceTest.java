@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2011, Joakim Andersson
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * # Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * # Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package nu.firetech.android.joystick.tests;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import nu.firetech.android.joystick.JoystickTrace;
+import nu.firetech.android.joystick.JoystickTracer;
+import nu.firetech.android.joystick.JoystickView;
+import nu.firetech.android.joystick.OnJoystickMovedListener;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.test.AndroidTestCase;
+import android.util.Log;
+import android.view.MotionEvent;
+import android.view.View.MeasureSpec;
+
+/**
+ * Checks that {@link JoystickView} reports its stages to the installed
+ * {@link JoystickTracer}, and measures what tracing costs per move event.
+ */
+public class JoystickTraceTest extends AndroidTestCase {
+	private static final String TAG = JoystickTraceTest.class.getSimpleName();
+
+	private static final int SIZE = 200;
+	private static final int MOVES = 2000;
+
+	private JoystickView stick;
+	private RecordingTracer tracer;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		stick = new JoystickView(getContext());
+		stick.setOnJostickMovedListener(new OnJoystickMovedListener() {
+			@Override
+			public void onMoved(int x, int y) {
+			}
+		});
+		int spec = MeasureSpec.makeMeasureSpec(SIZE, MeasureSpec.EXACTLY);
+		stick.measure(spec, spec);
+		stick.layout(0, 0, SIZE, SIZE);
+		tracer = new RecordingTracer();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		JoystickTrace.setTracer(null);
+		super.tearDown();
+	}
+
+	public void testTouchStages() {
+		JoystickTrace.setTracer(tracer);
+		touch(MotionEvent.ACTION_DOWN, SIZE / 2, SIZE / 2);
+		touch(MotionEvent.ACTION_MOVE, SIZE, SIZE / 2);
+		touch(MotionEvent.ACTION_UP, SIZE, SIZE / 2);
+
+		assertTrue(tracer.sections.contains(JoystickTrace.ON_TOUCH_EVENT));
+		assertTrue(tracer.sections.contains(JoystickTrace.REPORT_ON_MOVED));
+		assertTrue(tracer.sections.contains(JoystickTrace.LISTENER));
+		assertEquals(0, tracer.depth);
+
+		assertEquals(Long.valueOf(0), tracer.counters.get("JoystickView.x"));
+		assertEquals(Long.valueOf(0), tracer.counters.get("JoystickView.reportsPerSec"));
+		assertEquals(Long.valueOf(2), tracer.counters.get("JoystickView.queue"));
+	}
+
+	public void testDrawStage() {
+		JoystickTrace.setTracer(tracer);
+		stick.draw(new Canvas(Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888)));
+
+		assertTrue(tracer.sections.contains(JoystickTrace.ON_DRAW));
+		assertEquals(0, tracer.depth);
+	}
+
+	public void testDisabled() {
+		JoystickTrace.setTracer(tracer);
+		JoystickTrace.setTracer(null);
+		touch(MotionEvent.ACTION_DOWN, SIZE / 2, SIZE / 2);
+		touch(MotionEvent.ACTION_MOVE, SIZE, SIZE / 2);
+
+		assertTrue(tracer.sections.isEmpty());
+		assertTrue(tracer.counters.isEmpty());
+	}
+
+	public void testOverhead() {
+		JoystickTracer noop = new JoystickTracer() {
+			@Override
+			public void beginSection(String name) {
+			}
+
+			@Override
+			public void endSection() {
+			}
+
+			@Override
+			public void setCounter(String name, long value) {
+			}
+		};
+
+		// Warm up before measuring
+		timeMoves();
+		long disabled = timeMoves();
+		JoystickTrace.setTracer(noop);
+		long enabled = timeMoves();
+
+		Log.i(TAG, String.format("Move event: %d ns untraced, %d ns with a no-op tracer",
+				disabled / MOVES, enabled / MOVES));
+	}
+
+	private long timeMoves() {
+		touch(MotionEvent.ACTION_DOWN, SIZE / 2, SIZE / 2);
+		long start = System.nanoTime();
+		for (int i = 0; i < MOVES; i++) {
+			touch(MotionEvent.ACTION_MOVE, i % SIZE, SIZE / 2);
+		}
+		long time = System.nanoTime() - start;
+		touch(MotionEvent.ACTION_UP, SIZE / 2, SIZE / 2);
+		return time;
+	}
+
+	private void touch(int action, float x, float y) {
+		MotionEvent ev = MotionEvent.obtain(0, 0, action, x, y, 0);
+		stick.onTouchEvent(ev);
+		ev.recycle();
+	}
+
+	// =========================================
+	// Helpers
+	// =========================================
+
+	private static class RecordingTracer implements JoystickTracer {
+		final ArrayList<String> sections = new ArrayList<String>();
+		final HashMap<String, Long> counters = new HashMap<String, Long>();
+		int depth;
+
+		@Override
+		public void beginSection(String name) {
+			sections.add(name);
+			depth++;
+		}
+
+		@Override
+		public void endSection() {
+			depth--;
+		}
+
+		@Override
+		public void setCounter(String name, long value) {
+			counters.put(name, value);
+		}
+	}
+}
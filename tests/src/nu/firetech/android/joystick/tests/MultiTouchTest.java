@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2011, Joakim Andersson
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * # Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * # Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package nu.firetech.android.joystick.tests;
+
+import nu.firetech.android.joystick.JoystickView;
+import nu.firetech.android.joystick.OnJoystickGestureListener;
+import nu.firetech.android.joystick.OnJoystickMovedListener;
+import android.test.AndroidTestCase;
+import android.view.MotionEvent;
+import android.view.View.MeasureSpec;
+
+/**
+ * Checks the precision mode, the rotation and pinch gestures and the pointer
+ * table of a {@link JoystickView} with multi touch enabled.
+ */
+public class MultiTouchTest extends AndroidTestCase {
+	private static final int SIZE = 200;
+	private static final int C = SIZE / 2;
+
+	private JoystickView stick;
+	private int moves, movedX, movedY;
+	private int gestures, rotation, pinch;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		stick = new JoystickView(getContext());
+		stick.setMultiTouch(true);
+		stick.setOnJostickMovedListener(new OnJoystickMovedListener() {
+			@Override
+			public void onMoved(int x, int y) {
+				moves++;
+				movedX = x;
+				movedY = y;
+			}
+		});
+		stick.setOnJoystickGestureListener(new OnJoystickGestureListener() {
+			@Override
+			public void onGesture(int rotation, int pinch) {
+				gestures++;
+				MultiTouchTest.this.rotation = rotation;
+				MultiTouchTest.this.pinch = pinch;
+			}
+		});
+
+		// Movement radius is 50 pixels, reported as 10
+		int spec = MeasureSpec.makeMeasureSpec(SIZE, MeasureSpec.EXACTLY);
+		stick.measure(spec, spec);
+		stick.layout(0, 0, SIZE, SIZE);
+	}
+
+	public void testPrecisionMode() {
+		touch(MotionEvent.ACTION_DOWN, new int[] { 0 }, C, C);
+		touch(pointerAction(MotionEvent.ACTION_POINTER_DOWN, 1), new int[] { 0, 1 }, C, C, C + 50, C);
+
+		// 40 pixels scaled by 0.25
+		touch(MotionEvent.ACTION_MOVE, new int[] { 0, 1 }, C + 40, C, C + 50, C);
+		assertEquals(2, movedX);
+		assertEquals(0, movedY);
+	}
+
+	public void testSecondFingerLiftedFirst() {
+		touch(MotionEvent.ACTION_DOWN, new int[] { 0 }, C, C);
+		touch(pointerAction(MotionEvent.ACTION_POINTER_DOWN, 1), new int[] { 0, 1 }, C, C, C + 50, C);
+		touch(MotionEvent.ACTION_MOVE, new int[] { 0, 1 }, C + 40, C, C + 50, C);
+		touch(pointerAction(MotionEvent.ACTION_POINTER_UP, 1), new int[] { 0, 1 }, C + 40, C, C + 50, C);
+		assertEquals(2, movedX);
+		assertEquals(0, rotation);
+		assertEquals(100, pinch);
+
+		// Continues unscaled from the handle position, without jumping to the finger
+		touch(MotionEvent.ACTION_MOVE, new int[] { 0 }, C + 60, C);
+		assertEquals(6, movedX);
+		assertEquals(0, stick.getPointerId());
+	}
+
+	public void testStickFingerLiftedFirst() {
+		touch(MotionEvent.ACTION_DOWN, new int[] { 0 }, C, C);
+		touch(pointerAction(MotionEvent.ACTION_POINTER_DOWN, 1), new int[] { 0, 1 }, C, C, C + 50, C);
+		touch(MotionEvent.ACTION_MOVE, new int[] { 0, 1 }, C + 40, C, C, C - 50);
+		touch(pointerAction(MotionEvent.ACTION_POINTER_UP, 0), new int[] { 0, 1 }, C + 40, C, C, C - 50);
+		assertEquals(0, movedX);
+		assertEquals(0, movedY);
+		assertEquals(JoystickView.INVALID_POINTER_ID, stick.getPointerId());
+		assertEquals(0, rotation);
+		assertEquals(100, pinch);
+
+		// The remaining finger no longer belongs to the stick
+		int movesBefore = moves;
+		int gesturesBefore = gestures;
+		touch(MotionEvent.ACTION_MOVE, new int[] { 1 }, C + 30, C - 30);
+		assertEquals(movesBefore, moves);
+		assertEquals(gesturesBefore, gestures);
+	}
+
+	public void testRotationAndPinch() {
+		touch(MotionEvent.ACTION_DOWN, new int[] { 0 }, C, C);
+		touch(pointerAction(MotionEvent.ACTION_POINTER_DOWN, 1), new int[] { 0, 1 }, C, C, C + 50, C);
+
+		// Quarter turn counter-clockwise, same distance
+		touch(MotionEvent.ACTION_MOVE, new int[] { 0, 1 }, C, C, C, C - 50);
+		assertEquals(90, rotation);
+		assertEquals(100, pinch);
+
+		// Half the distance
+		touch(MotionEvent.ACTION_MOVE, new int[] { 0, 1 }, C, C, C, C - 25);
+		assertEquals(90, rotation);
+		assertEquals(50, pinch);
+
+		// The stick finger did not move
+		assertEquals(0, moves);
+	}
+
+	public void testPointerIdOutsideTable() {
+		final int id = JoystickView.MAX_POINTERS;
+		touch(MotionEvent.ACTION_DOWN, new int[] { 0 }, C, C);
+		touch(pointerAction(MotionEvent.ACTION_POINTER_DOWN, 1), new int[] { 0, id }, C, C, C + 50, C);
+		touch(MotionEvent.ACTION_MOVE, new int[] { 0, id }, C + 40, C, C, C - 50);
+
+		// Not in precision mode, and no gesture
+		assertEquals(8, movedX);
+		assertEquals(0, gestures);
+	}
+
+	// =========================================
+	// Helpers
+	// =========================================
+
+	private static int pointerAction(int action, int pointerIndex) {
+		return action | (pointerIndex << MotionEvent.ACTION_POINTER_INDEX_SHIFT);
+	}
+
+	@SuppressWarnings("deprecation")
+	private void touch(int action, int[] ids, float... xy) {
+		MotionEvent.PointerCoords[] coords = new MotionEvent.PointerCoords[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			coords[i] = new MotionEvent.PointerCoords();
+			coords[i].x = xy[i * 2];
+			coords[i].y = xy[i * 2 + 1];
+		}
+		MotionEvent ev = MotionEvent.obtain(0, 0, action, ids.length, ids, coords, 0, 1, 1, 0, 0, 0, 0);
+		stick.onTouchEvent(ev);
+		ev.recycle();
+	}
+}
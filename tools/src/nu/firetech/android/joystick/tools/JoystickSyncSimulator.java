@@ -0,0 +1,298 @@
+/*
+ * Copyright (c) 2011, Joakim Andersson
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * # Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * # Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package nu.firetech.android.joystick.tools;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Random;
+
+import nu.firetech.android.joystick.JoystickLink;
+import nu.firetech.android.joystick.JoystickSyncReceiver;
+import nu.firetech.android.joystick.JoystickSyncSender;
+import nu.firetech.android.joystick.OnJoystickMovedListener;
+
+/**
+ * The {@link JoystickSyncSimulator} class runs a {@link JoystickSyncSender}
+ * and a {@link JoystickSyncReceiver} over a simulated lossy loopback link,
+ * and measures how well the receiver keeps up with the stick. The link drops,
+ * delays, reorders (by random jitter) and duplicates packets.
+ * 
+ * This is a development tool and not part of the library. The sync classes
+ * do not depend on Android, so it runs on a plain JVM:
+ * javac -d out src/nu/firetech/android/joystick/JoystickSync*.java
+ *   src/nu/firetech/android/joystick/JoystickLink.java
+ *   src/nu/firetech/android/joystick/OnJoystickMovedListener.java
+ *   tools/src/nu/firetech/android/joystick/tools/JoystickSyncSimulator.java
+ * java -cp out nu.firetech.android.joystick.tools.JoystickSyncSimulator
+ *   [redundancy [keyframeInterval [timeout [latency [jitter]]]]]
+ */
+public class JoystickSyncSimulator {
+	// =========================================
+	// Settings
+	// =========================================
+
+	//Number of recent stick movements searched for the receiver's state
+	private static final int MOVE_HISTORY = 100;
+
+	private double lossRate = 0.1;
+	private int redundancy = JoystickSyncSender.DEFAULT_REDUNDANCY;
+	private long keyframeInterval = JoystickSyncSender.DEFAULT_KEYFRAME_INTERVAL;
+	private long timeout = JoystickSyncReceiver.DEFAULT_TIMEOUT;
+	private long latency = 10;
+	private long jitter = 20;
+	private double duplicationRate = 0.02;
+	private long moveInterval = 20;
+	private long duration = 60000;
+	private long seed = 1;
+
+	public void setLossRate(double lossRate) {
+		this.lossRate = lossRate;
+	}
+
+	public void setRedundancy(int redundancy) {
+		this.redundancy = redundancy;
+	}
+
+	public void setKeyframeInterval(long keyframeInterval) {
+		this.keyframeInterval = keyframeInterval;
+	}
+
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+
+	/** Sets the one way delay of the link, in milliseconds. */
+	public void setLatency(long latency) {
+		this.latency = latency;
+	}
+
+	/**
+	 * Sets the largest random delay added on top of the latency, in
+	 * milliseconds. Packets overtake each other when this is larger than the
+	 * time between them.
+	 */
+	public void setJitter(long jitter) {
+		this.jitter = jitter;
+	}
+
+	/** Sets the share of packets that are delivered twice. */
+	public void setDuplicationRate(double duplicationRate) {
+		this.duplicationRate = duplicationRate;
+	}
+
+	/** Sets how often the simulated stick moves, in milliseconds. */
+	public void setMoveInterval(long moveInterval) {
+		this.moveInterval = moveInterval;
+	}
+
+	/** Sets the simulated time to run, in milliseconds. */
+	public void setDuration(long duration) {
+		this.duration = duration;
+	}
+
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	// =========================================
+	// Simulation
+	// =========================================
+
+	/**
+	 * Runs the simulation in simulated time, one millisecond per step.
+	 */
+	public Result run() {
+		final Random random = new Random(seed);
+		final ArrayList<Packet> inFlight = new ArrayList<Packet>();
+		final long[] clock = new long[1];
+		final Result result = new Result();
+		final int[] received = new int[2];
+		final long[] delivered = new long[1];
+
+		JoystickSyncSender sender = new JoystickSyncSender(new JoystickLink() {
+			@Override
+			public void send(byte[] packet, int length) {
+				result.packetsSent++;
+				if (random.nextDouble() >= lossRate) {
+					byte[] copy = new byte[length];
+					System.arraycopy(packet, 0, copy, 0, length);
+					inFlight.add(new Packet(copy, clock[0] + latency + delay()));
+					if (random.nextDouble() < duplicationRate) {
+						inFlight.add(new Packet(copy, clock[0] + latency + delay()));
+					}
+				}
+			}
+
+			private long delay() {
+				return (jitter > 0 ? (long)(random.nextDouble() * (jitter + 1)) : 0);
+			}
+		}, redundancy, keyframeInterval);
+
+		JoystickSyncReceiver receiver = new JoystickSyncReceiver(new OnJoystickMovedListener() {
+			@Override
+			public void onMoved(int x, int y) {
+				received[0] = x;
+				received[1] = y;
+				delivered[0]++;
+			}
+		}, timeout);
+
+		int x = 0, y = 0;
+		long behindSince = -1;
+
+		// Every stick movement, to tell which one the receiver is showing
+		int maxMoves = (int)(duration / moveInterval) + 2;
+		int[] moveX = new int[maxMoves];
+		int[] moveY = new int[maxMoves];
+		long[] moveTime = new long[maxMoves];
+		int moves = 1;
+		for (long now = 0; now < duration; now++) {
+			clock[0] = now;
+
+			// Alternate between moving the stick and holding it still for a second
+			if (now % moveInterval == 0 && (now / 1000) % 2 == 0) {
+				// Triangle waves of different periods on both axes
+				long step = now / moveInterval;
+				int newX = (int)Math.abs(step % 40 - 20) - 10;
+				int newY = (int)Math.abs(step % 28 - 14) - 7;
+				if (newX != x || newY != y) {
+					x = newX;
+					y = newY;
+					result.senderUpdates++;
+					moveX[moves] = x;
+					moveY[moves] = y;
+					moveTime[moves] = now;
+					moves++;
+					sender.setState(x, y, now);
+				}
+			}
+			sender.tick(now);
+
+			// Deliver in send order among the packets that are due
+			for (Iterator<Packet> i = inFlight.iterator(); i.hasNext(); ) {
+				Packet packet = i.next();
+				if (packet.deliverAt <= now) {
+					i.remove();
+					receiver.receive(packet.data, packet.data.length, now);
+				}
+			}
+			receiver.check(now);
+
+			// The receiver is out of date since the stick left the state it
+			// shows. In failsafe, or if it shows no recent stick state, since it
+			// started differing from the stick.
+			if (received[0] != x || received[1] != y) {
+				if (behindSince < 0) {
+					behindSince = now;
+				}
+				long outdatedAt = behindSince;
+				for (int k = moves - 2; !receiver.isFailsafe() && k >= Math.max(0, moves - MOVE_HISTORY); k--) {
+					if (moveX[k] == received[0] && moveY[k] == received[1]) {
+						outdatedAt = moveTime[k + 1];
+						break;
+					}
+				}
+				result.worstRecovery = Math.max(result.worstRecovery, now - outdatedAt + 1);
+			} else {
+				behindSince = -1;
+			}
+		}
+
+		result.packetRate = result.packetsSent * 1000.0 / duration;
+		// Every failsafe trip adds one move to (0, 0) that the stick never made
+		result.effectiveRate = (delivered[0] - receiver.getFailsafeCount()) * 1000.0 / duration;
+		result.stalePackets = receiver.getStaleCount();
+		result.lostStates = receiver.getLostCount();
+		result.recoveredStates = receiver.getRecoveredCount();
+		result.failsafeTrips = receiver.getFailsafeCount();
+		return result;
+	}
+
+	private static class Packet {
+		final byte[] data;
+		final long deliverAt;
+
+		Packet(byte[] data, long deliverAt) {
+			this.data = data;
+			this.deliverAt = deliverAt;
+		}
+	}
+
+	/**
+	 * The measurements of a simulation run.
+	 */
+	public static class Result {
+		/** Packets passed to the link, including lost ones. */
+		public long packetsSent;
+		/** Stick movements made by the sender. */
+		public long senderUpdates;
+		/** Packets per second passed to the link. */
+		public double packetRate;
+		/** Stick movements per second passed to the receiver's listener. */
+		public double effectiveRate;
+		/** Longest time the receiver showed an outdated state, in milliseconds (includes latency). */
+		public long worstRecovery;
+		/** Reordered or duplicated packets ignored by the receiver. */
+		public long stalePackets;
+		public long lostStates;
+		public long recoveredStates;
+		public long failsafeTrips;
+	}
+
+	// =========================================
+	// Command line
+	// =========================================
+
+	public static void main(String[] args) {
+		final double[] lossRates = { 0, 0.05, 0.1, 0.2, 0.3, 0.5 };
+
+		JoystickSyncSimulator sim = new JoystickSyncSimulator();
+		if (args.length > 0) {
+			sim.setRedundancy(Integer.parseInt(args[0]));
+		}
+		if (args.length > 1) {
+			sim.setKeyframeInterval(Long.parseLong(args[1]));
+		}
+		if (args.length > 2) {
+			sim.setTimeout(Long.parseLong(args[2]));
+		}
+		if (args.length > 3) {
+			sim.setLatency(Long.parseLong(args[3]));
+		}
+		if (args.length > 4) {
+			sim.setJitter(Long.parseLong(args[4]));
+		}
+
+		System.out.println("loss   sent/s  effective/s  worst(ms)  stale  lost  recovered  failsafes");
+		for (double lossRate : lossRates) {
+			sim.setLossRate(lossRate);
+			Result r = sim.run();
+			System.out.println(String.format("%4.0f%%  %6.1f  %11.1f  %9d  %5d  %4d  %9d  %9d",
+					lossRate * 100, r.packetRate, r.effectiveRate, r.worstRecovery,
+					r.stalePackets, r.lostStates, r.recoveredStates, r.failsafeTrips));
+		}
+	}
+}